@@ -2,9 +2,19 @@ package uk.ac.ed.inf;
 
 import junit.framework.TestCase;
 import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
 import uk.ac.ed.inf.ilp.data.*;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.time.LocalDate;
 import java.util.*;
 
@@ -19,26 +29,31 @@ public class FlightPathTest extends TestCase {
     public static RESTAccess REST_ACCESS = new RESTAccess();
 
     /**
-     * Generates random points until it's in a region
+     * Generates random points within the region's bounding box until one is in the region
      *
      * @param region given region
      * @return random point in that region
      */
     public LngLat createLngLatInRegion(NamedRegion region) {
-        LngLat[] vertices = region.vertices();
-        Arrays.sort(vertices, Comparator
-                .comparing(LngLat::lng)
-                .thenComparing(LngLat::lat)
-        );
-        double lng;
-        double lat;
+        // Bounding box in one pass, without sorting (and so mutating) the region's vertices
+        double minLng = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (LngLat vertex : region.vertices()) {
+            minLng = Math.min(minLng, vertex.lng());
+            maxLng = Math.max(maxLng, vertex.lng());
+            minLat = Math.min(minLat, vertex.lat());
+            maxLat = Math.max(maxLat, vertex.lat());
+        }
+
         LngLat pos = new LngLat(0, 0);
 
         while (!HANDLER.isInRegion(pos, region)) {
-            lng = RANDOM.nextDouble(vertices[0].lng(), vertices[3].lng());
-            lat = RANDOM.nextDouble(vertices[0].lat(), vertices[3].lat());
-
-            pos = new LngLat(lng, lat);
+            pos = new LngLat(
+                    RANDOM.nextDouble(minLng, maxLng),
+                    RANDOM.nextDouble(minLat, maxLat)
+            );
         }
 
         return pos;
@@ -82,43 +97,143 @@ public class FlightPathTest extends TestCase {
     }
 
     public void createDroneGeojson(ArrayList<Flightpath> flightpaths, LocalDate date) throws JsonProcessingException {
+        // writer() takes the whole file contents as a String, so this still buffers the full GeoJSON
+        StringWriter geoJson = new StringWriter();
+
+        try {
+            writeDroneGeojson(flightpaths, geoJson, false);
+        } catch (IOException e) {
+            // A StringWriter never throws, so this can't happen
+            throw new UncheckedIOException(e);
+        }
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        writer("drone", geoJson.toString(), date);
+    }
 
-        // Adds the FeatureCollection to the geogson
+    /**
+     * Streams the drone's path as a GeoJSON FeatureCollection straight to the given writer, without
+     * building a JsonObject tree first. Doubles use JsonWriter's Double.toString formatting, the same
+     * as the pretty-printed Gson tree this replaces
+     *
+     * @param flightpaths every move the drone made, in order
+     * @param out where the GeoJSON is written to (not closed)
+     * @param compact whether to skip the pretty printing
+     */
+    public void writeDroneGeojson(List<Flightpath> flightpaths, Writer out, boolean compact) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        if (!compact) {
+            json.setIndent("  ");
+        }
+
+        // Opens the FeatureCollection and its single feature
+        json.beginObject();
+        json.name("type").value("FeatureCollection");
+        json.name("features").beginArray();
+        json.beginObject();
+        json.name("type").value("Feature");
+
+        // Writes each point in flightpath as it goes, instead of building up a JsonArray
+        json.name("geometry").beginObject();
+        json.name("type").value("LineString");
+        json.name("coordinates").beginArray();
+        for (Flightpath flightpath : flightpaths) {
+            json.beginArray();
+            json.value(flightpath.fromLongitude());
+            json.value(flightpath.fromLatitude());
+            json.endArray();
+        }
+        json.endArray();
+        json.endObject();
+
+        json.name("properties").beginObject().endObject();
+
+        // Closes the feature, the list of features and the FeatureCollection
+        json.endObject();
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Builds the GeoJSON the way createDroneGeojson used to, as a Gson tree
+     *
+     * @param flightpaths every move the drone made, in order
+     * @return the whole FeatureCollection
+     */
+    private JsonObject createDroneGeojsonTree(List<Flightpath> flightpaths) {
         JsonObject geoJson = new JsonObject();
         geoJson.addProperty("type", "FeatureCollection");
 
         JsonArray features = new JsonArray();
 
-        // Creates the feature
         JsonObject feature = new JsonObject();
         feature.addProperty("type", "Feature");
 
-        // Creates the LineString
         JsonObject geometry = new JsonObject();
         geometry.addProperty("type", "LineString");
 
         JsonArray coordsArray = new JsonArray();
-
-        // Adds each point in flightpath to a JsonArray
         for (Flightpath flightpath : flightpaths) {
-
             JsonArray point = new JsonArray();
             point.add(flightpath.fromLongitude());
             point.add(flightpath.fromLatitude());
             coordsArray.add(point);
         }
 
-        // Adds the JsonArray geometry, adding it to the feature
         geometry.add("coordinates", coordsArray);
         feature.add("geometry", geometry);
         feature.add("properties", new JsonObject());
 
-        // Adds the feature to the list of features, then adding that to the geogson
         features.add(feature);
         geoJson.add("features", features);
 
-        writer("drone", gson.toJson(geoJson), date);
+        return geoJson;
+    }
+
+    /**
+     * A short flight out of Appleton Tower, including a hover and a whole-number coordinate
+     *
+     * @return the moves of that flight
+     */
+    private List<Flightpath> createFlightpaths() {
+        return List.of(
+                new Flightpath("19514FE0", -3.186874, 55.944494, 0, -3.186724, 55.944494),
+                new Flightpath("19514FE0", -3.186724, 55.944494, 22.5, -3.1865854181433, 55.94455140158),
+                new Flightpath("19514FE0", -3.1865854181433, 55.94455140158, 999, -3.1865854181433, 55.94455140158),
+                new Flightpath("19514FE0", -3.0, 56.0, 180, -3.00015, 56.0)
+        );
+    }
+
+    @Test
+    public void testDroneGeojsonMatchesPrettyTree() throws IOException {
+        List<Flightpath> flightpaths = createFlightpaths();
+
+        StringWriter streamed = new StringWriter();
+        writeDroneGeojson(flightpaths, streamed, false);
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+        assertEquals(gson.toJson(createDroneGeojsonTree(flightpaths)), streamed.toString());
+    }
+
+    @Test
+    public void testDroneGeojsonCompactMatchesTree() throws IOException {
+        List<Flightpath> flightpaths = createFlightpaths();
+
+        StringWriter streamed = new StringWriter();
+        writeDroneGeojson(flightpaths, streamed, true);
+
+        assertEquals(new Gson().toJson(createDroneGeojsonTree(flightpaths)), streamed.toString());
+        assertFalse(streamed.toString().contains("\n"));
+    }
+
+    @Test
+    public void testDroneGeojsonNoMoves() throws IOException {
+        StringWriter streamed = new StringWriter();
+        writeDroneGeojson(List.of(), streamed, false);
+
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+        assertEquals(gson.toJson(createDroneGeojsonTree(List.of())), streamed.toString());
     }
 }
\ No newline at end of file